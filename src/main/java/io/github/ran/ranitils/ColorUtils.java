@@ -28,8 +28,9 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import com.diogonunes.jcolor.Ansi;
 import com.diogonunes.jcolor.Attribute;
 import com.sun.jna.Function;
@@ -45,7 +46,7 @@ import java.util.regex.Pattern;
 
 @SuppressWarnings("unused")
 public class ColorUtils {
-    private static final Map<Color, String> colorToMinecraftResourceLocation = new HashMap<>();
+    private static final MinecraftPalette defaultMinecraftPalette = new MinecraftPalette();
 
     /**
      * Gets the average color of the image.
@@ -81,11 +82,7 @@ public class ColorUtils {
      * @throws IOException If it fails to read the image.
      */
     public static int putMinecraftBlockItemColor(InputStream resourceLocationStream, String nameOfBlockOrItemWithNamespace) throws IOException {
-        int color = getAverageColorImage(resourceLocationStream);
-        if (!colorToMinecraftResourceLocation.containsKey(new Color(color))) {
-            colorToMinecraftResourceLocation.put(new Color(color), nameOfBlockOrItemWithNamespace);
-        }
-        return color;
+        return defaultMinecraftPalette.putMinecraftBlockItemColor(resourceLocationStream, nameOfBlockOrItemWithNamespace);
     }
 
     /**
@@ -94,23 +91,22 @@ public class ColorUtils {
      * @return The resource location of the closest minecraft block or item.
      */
     public static String closestColorToMinecraftBlockItem(Color color) {
-        int closestColor = Integer.MAX_VALUE;
-        String closestResourceLocation = "";
-        for (Map.Entry<Color, String> entry : colorToMinecraftResourceLocation.entrySet()) {
-            int distance = color.getRGB() - entry.getKey().getRGB();
-            if (distance < closestColor) {
-                closestColor = distance;
-                closestResourceLocation = entry.getValue();
-            }
-        }
-        return closestResourceLocation;
+        return defaultMinecraftPalette.closestColorToMinecraftBlockItem(color);
     }
 
     /**
      * Clears the map that's used for mapping colors to minecraft resource names.
      */
     public static void clearMinecraftColorTable() {
-        colorToMinecraftResourceLocation.clear();
+        defaultMinecraftPalette.clear();
+    }
+
+    /**
+     * Gets the palette used by the static minecraft color methods.
+     * @return The default palette.
+     */
+    public static MinecraftPalette getDefaultMinecraftPalette() {
+        return defaultMinecraftPalette;
     }
 
     /**
@@ -125,7 +121,211 @@ public class ColorUtils {
         return new Color(Color.HSBtoRGB((float)((System.currentTimeMillis() - x * 10.0 * offsetScale - y * 10.0 * offsetScale) % v) / v, 0.8f, 1f));
     }
 
+    /**
+     * Maps colors to minecraft resource names.
+     * <br>
+     * You can have as many of these as you want (one per version, one per resource pack, etc.).
+     * Writers can put colors from any thread, readers always look at an immutable snapshot so lookups never lock.
+     */
+    public static class MinecraftPalette {
+        private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+
+        /**
+         * Same as {@link ColorUtils#putMinecraftBlockItemColor(InputStream, String)} but for this palette.
+         * @param resourceLocationStream The stream of the block or item texture.
+         * @param nameOfBlockOrItemWithNamespace The name of the block or item with namespace. For example: minecraft:stone
+         * @return The average color of the block or item.
+         * @throws IOException If it fails to read the image.
+         */
+        public int putMinecraftBlockItemColor(InputStream resourceLocationStream, String nameOfBlockOrItemWithNamespace) throws IOException {
+            int color = getAverageColorImage(resourceLocationStream);
+            put(color, nameOfBlockOrItemWithNamespace);
+            return color;
+        }
+
+        /**
+         * Maps a color to a resource location. If the color is already mapped the old resource location is kept.
+         * @param rgb The color in rgb (alpha is ignored).
+         * @param nameOfBlockOrItemWithNamespace The name of the block or item with namespace. For example: minecraft:stone
+         * @return True if the color was added.
+         */
+        public boolean put(int rgb, String nameOfBlockOrItemWithNamespace) {
+            rgb &= 0xFFFFFF;
+            while (true) {
+                Snapshot current = snapshot.get();
+                if (current.indexOf(rgb) >= 0) return false;
+                if (snapshot.compareAndSet(current, current.with(rgb, nameOfBlockOrItemWithNamespace))) return true;
+            }
+        }
+
+        /**
+         * Maps a bunch of colors to resource locations in one go, this is a lot faster than calling {@link #put(int, String)} for each one.
+         * @param colors Map of rgb colors to resource locations.
+         */
+        public void putAll(Map<Integer, String> colors) {
+            while (true) {
+                Snapshot current = snapshot.get();
+                if (snapshot.compareAndSet(current, current.withAll(colors))) return;
+            }
+        }
+
+        /**
+         * Gets the closest
+         * @param color The color to get the closest minecraft resource location for.
+         * @return The resource location of the closest minecraft block or item.
+         */
+        public String closestColorToMinecraftBlockItem(Color color) {
+            return closestColorToMinecraftBlockItem(color.getRGB());
+        }
+
+        /**
+         * Gets the closest
+         * @param rgb The color in rgb (alpha is ignored).
+         * @return The resource location of the closest minecraft block or item, or an empty string if the palette is empty.
+         */
+        public String closestColorToMinecraftBlockItem(int rgb) {
+            return snapshot.get().closest(rgb);
+        }
+
+        /**
+         * @return The amount of colors in this palette.
+         */
+        public int size() {
+            return snapshot.get().rgb.length;
+        }
+
+        /**
+         * Clears the palette.
+         */
+        public void clear() {
+            snapshot.set(Snapshot.EMPTY);
+        }
+
+        private static final class Snapshot {
+            private static final Snapshot EMPTY = new Snapshot(new int[0], new String[0]);
+
+            // Sorted so lookups by exact color can binary search
+            private final int[] rgb;
+            private final String[] names;
+
+            private Snapshot(int[] rgb, String[] names) {
+                this.rgb = rgb;
+                this.names = names;
+            }
+
+            private int indexOf(int color) {
+                return Arrays.binarySearch(rgb, color);
+            }
+
+            private Snapshot with(int color, String name) {
+                int insertion = -(indexOf(color) + 1);
+                int[] newRgb = new int[rgb.length + 1];
+                String[] newNames = new String[names.length + 1];
+                System.arraycopy(rgb, 0, newRgb, 0, insertion);
+                System.arraycopy(names, 0, newNames, 0, insertion);
+                newRgb[insertion] = color;
+                newNames[insertion] = name;
+                System.arraycopy(rgb, insertion, newRgb, insertion + 1, rgb.length - insertion);
+                System.arraycopy(names, insertion, newNames, insertion + 1, names.length - insertion);
+                return new Snapshot(newRgb, newNames);
+            }
+
+            private Snapshot withAll(Map<Integer, String> colors) {
+                long[] merged = new long[rgb.length + colors.size()];
+                String[] pending = new String[colors.size()];
+                int count = 0;
+                for (int i = 0; i < rgb.length; i++) {
+                    // Existing entries sort before new ones with the same color so they win
+                    merged[count++] = ((long) rgb[i] << 32) | i;
+                }
+                int p = 0;
+                for (Map.Entry<Integer, String> entry : colors.entrySet()) {
+                    pending[p] = entry.getValue();
+                    merged[count++] = ((long) (entry.getKey() & 0xFFFFFF) << 32) | (rgb.length + p++);
+                }
+                Arrays.sort(merged);
+
+                int[] newRgb = new int[count];
+                String[] newNames = new String[count];
+                int size = 0;
+                for (long packed : merged) {
+                    int color = (int) (packed >>> 32);
+                    if (size > 0 && newRgb[size - 1] == color) continue;
+                    int index = (int) packed;
+                    newRgb[size] = color;
+                    newNames[size++] = index < rgb.length ? names[index] : pending[index - rgb.length];
+                }
+                return new Snapshot(Arrays.copyOf(newRgb, size), Arrays.copyOf(newNames, size));
+            }
+
+            private String closest(int color) {
+                int red = (color >> 16) & 0xff;
+                int green = (color >> 8) & 0xff;
+                int blue = color & 0xff;
+                int closestDistance = Integer.MAX_VALUE;
+                String closestResourceLocation = "";
+                for (int i = 0; i < rgb.length; i++) {
+                    int dr = red - ((rgb[i] >> 16) & 0xff);
+                    int dg = green - ((rgb[i] >> 8) & 0xff);
+                    int db = blue - (rgb[i] & 0xff);
+                    int distance = dr * dr + dg * dg + db * db;
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closestResourceLocation = names[i];
+                        if (distance == 0) break;
+                    }
+                }
+                return closestResourceLocation;
+            }
+        }
+    }
+
     public static class AnsiColorUtils {
+        private static volatile ColorDepth colorDepth = ColorDepth.TRUE_COLOR;
+
+        /**
+         * The amount of colors a terminal can show.
+         */
+        public enum ColorDepth {
+            TRUE_COLOR,
+            ANSI_256,
+            ANSI_16;
+
+            /**
+             * Guesses the color depth of the current terminal from the environment.
+             * @return The color depth, {@link #ANSI_16} if it can't tell.
+             */
+            public static ColorDepth detect() {
+                String colorTerm = System.getenv("COLORTERM");
+                if (colorTerm != null && (colorTerm.equalsIgnoreCase("truecolor") || colorTerm.equalsIgnoreCase("24bit"))) {
+                    return TRUE_COLOR;
+                }
+                if (System.getenv("WT_SESSION") != null) {
+                    return TRUE_COLOR; // Windows Terminal
+                }
+                String term = System.getenv("TERM");
+                if (term != null && term.contains("256color")) {
+                    return ANSI_256;
+                }
+                return ANSI_16;
+            }
+        }
+
+        /**
+         * Sets the color depth used when generating ansi colors. Defaults to {@link ColorDepth#TRUE_COLOR}.
+         * @param depth The color depth, use {@link ColorDepth#detect()} to guess it.
+         */
+        public static void setColorDepth(ColorDepth depth) {
+            colorDepth = depth;
+        }
+
+        /**
+         * @return The color depth used when generating ansi colors.
+         */
+        public static ColorDepth getColorDepth() {
+            return colorDepth;
+        }
+
         /**
          * Enables ansi codes on Windows.
          */
@@ -151,7 +351,14 @@ public class ColorUtils {
          * @return The ansi color.
          */
         public static Attribute generateAnsiTextColorAttribute(Color color) {
-            return Attribute.TEXT_COLOR(color.getRed(), color.getGreen(), color.getBlue());
+            switch (colorDepth) {
+                case ANSI_256:
+                    return ColorTables.ATTRIBUTES_256[ColorTables.to256(color.getRGB())];
+                case ANSI_16:
+                    return ColorTables.ATTRIBUTES_16[ColorTables.to16(color.getRGB())];
+                default:
+                    return Attribute.TEXT_COLOR(color.getRed(), color.getGreen(), color.getBlue());
+            }
         }
 
         /**
@@ -161,7 +368,23 @@ public class ColorUtils {
          * @return The ansi color.
          */
         public static String generateAnsiTextColor(Color color, String text) {
-            return Ansi.colorize(text, Attribute.TEXT_COLOR(color.getRed(), color.getGreen(), color.getBlue()));
+            return Ansi.colorize(text, generateAnsiTextColorCode(color.getRGB()));
+        }
+
+        /**
+         * Generates the ansi escape code for a given color using the current {@link ColorDepth}.
+         * @param rgb The color in rgb (alpha is ignored).
+         * @return The ansi escape code.
+         */
+        public static String generateAnsiTextColorCode(int rgb) {
+            switch (colorDepth) {
+                case ANSI_256:
+                    return ColorTables.CODES_256[ColorTables.to256(rgb)];
+                case ANSI_16:
+                    return ColorTables.CODES_16[ColorTables.to16(rgb)];
+                default:
+                    return Ansi.generateCode(Attribute.TEXT_COLOR((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff));
+            }
         }
 
         /**
@@ -191,6 +414,87 @@ public class ColorUtils {
             return Pattern.compile("(?i)" + '\u00A7' + "[0-9A-FK-ORX]").matcher(mcText).find();
         }
 
+        /**
+         * Lookup tables for turning rgb into 256 and 16 color codes.
+         * Colors are quantized to 5 bits per channel so a conversion is just an array read.
+         */
+        private static final class ColorTables {
+            // xterm's default 16 color palette
+            private static final int[] PALETTE_16 = {
+                    0x000000, 0xCD0000, 0x00CD00, 0xCDCD00, 0x0000EE, 0xCD00CD, 0x00CDCD, 0xE5E5E5,
+                    0x7F7F7F, 0xFF0000, 0x00FF00, 0xFFFF00, 0x5C5CFF, 0xFF00FF, 0x00FFFF, 0xFFFFFF
+            };
+            private static final int[] PALETTE_256 = new int[256];
+            private static final String[] CODES_16 = new String[16];
+            private static final String[] CODES_256 = new String[256];
+            private static final Attribute[] ATTRIBUTES_16 = {
+                    Attribute.BLACK_TEXT(), Attribute.RED_TEXT(), Attribute.GREEN_TEXT(), Attribute.YELLOW_TEXT(),
+                    Attribute.BLUE_TEXT(), Attribute.MAGENTA_TEXT(), Attribute.CYAN_TEXT(), Attribute.WHITE_TEXT(),
+                    Attribute.BRIGHT_BLACK_TEXT(), Attribute.BRIGHT_RED_TEXT(), Attribute.BRIGHT_GREEN_TEXT(), Attribute.BRIGHT_YELLOW_TEXT(),
+                    Attribute.BRIGHT_BLUE_TEXT(), Attribute.BRIGHT_MAGENTA_TEXT(), Attribute.BRIGHT_CYAN_TEXT(), Attribute.BRIGHT_WHITE_TEXT()
+            };
+            private static final Attribute[] ATTRIBUTES_256 = new Attribute[256];
+            private static final byte[] LOOKUP_16 = new byte[1 << 15];
+            private static final byte[] LOOKUP_256 = new byte[1 << 15];
+
+            static {
+                System.arraycopy(PALETTE_16, 0, PALETTE_256, 0, 16);
+                int[] levels = {0x00, 0x5F, 0x87, 0xAF, 0xD7, 0xFF};
+                for (int i = 0; i < 216; i++) {
+                    PALETTE_256[16 + i] = levels[i / 36] << 16 | levels[(i / 6) % 6] << 8 | levels[i % 6];
+                }
+                for (int i = 0; i < 24; i++) {
+                    int grey = 8 + i * 10;
+                    PALETTE_256[232 + i] = grey << 16 | grey << 8 | grey;
+                }
+                for (int i = 0; i < 16; i++) {
+                    CODES_16[i] = Ansi.generateCode(ATTRIBUTES_16[i]);
+                }
+                for (int i = 0; i < 256; i++) {
+                    ATTRIBUTES_256[i] = Attribute.TEXT_COLOR(i);
+                    CODES_256[i] = Ansi.generateCode(ATTRIBUTES_256[i]);
+                }
+                for (int i = 0; i < LOOKUP_16.length; i++) {
+                    // Middle of the quantized bucket
+                    int rgb = (i >> 10) << 19 | ((i >> 5) & 0x1f) << 11 | (i & 0x1f) << 3 | 0x040404;
+                    LOOKUP_16[i] = (byte) nearest(rgb, PALETTE_16, 0);
+                    // The first 16 colors can be changed by the terminal's theme so only use the cube and greys
+                    LOOKUP_256[i] = (byte) nearest(rgb, PALETTE_256, 16);
+                }
+            }
+
+            private static int nearest(int rgb, int[] palette, int from) {
+                int red = (rgb >> 16) & 0xff;
+                int green = (rgb >> 8) & 0xff;
+                int blue = rgb & 0xff;
+                int closest = from;
+                int closestDistance = Integer.MAX_VALUE;
+                for (int i = from; i < palette.length; i++) {
+                    int dr = red - ((palette[i] >> 16) & 0xff);
+                    int dg = green - ((palette[i] >> 8) & 0xff);
+                    int db = blue - (palette[i] & 0xff);
+                    int distance = dr * dr + dg * dg + db * db;
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closest = i;
+                    }
+                }
+                return closest;
+            }
+
+            private static int quantize(int rgb) {
+                return (rgb >> 9) & 0x7C00 | (rgb >> 6) & 0x3E0 | (rgb >> 3) & 0x1F;
+            }
+
+            private static int to16(int rgb) {
+                return LOOKUP_16[quantize(rgb)];
+            }
+
+            private static int to256(int rgb) {
+                return LOOKUP_256[quantize(rgb)] & 0xff;
+            }
+        }
+
         private enum Colors {
             BLACK('\u00A7' + "0", Attribute.BLACK_TEXT()),
             DARK_GREEN('\u00A7' + "2", Attribute.GREEN_TEXT()),
@@ -290,8 +594,8 @@ public class ColorUtils {
 
                 String[] magicCodes = MatchingUtils.results(Pattern.compile("(?i)" + '\u00A7' +"x[A-F0-9" + '\u00A7' +"]{12}").matcher(mcText)).map(MatchResult::group).toArray(String[]::new);
                 for (String magicCode : magicCodes) {
-                    Color color = Color.decode("#" + magicCode.substring(2).replaceAll("\u00A7", ""));
-                    mcText = mcText.replaceAll(Pattern.quote(magicCode), Matcher.quoteReplacement(Ansi.generateCode(Attribute.TEXT_COLOR(color.getRed(), color.getGreen(), color.getBlue()))));
+                    int rgb = Integer.parseInt(magicCode.substring(2).replace("\u00A7", ""), 16);
+                    mcText = mcText.replaceAll(Pattern.quote(magicCode), Matcher.quoteReplacement(generateAnsiTextColorCode(rgb)));
                 }
 
                 String[] matches = MatchingUtils.results(Pattern.compile("(?i)" + '\u00A7' + "[0-9A-FK-ORX]").matcher(mcText)).map(MatchResult::group).toArray(String[]::new);
@@ -311,8 +615,8 @@ public class ColorUtils {
 
                 String[] magicCodes = MatchingUtils.results(Pattern.compile("(?i)" + '\u00A7' +"x[A-F0-9" + '\u00A7' +"]{12}").matcher(mcText)).map(MatchResult::group).toArray(String[]::new);
                 for (String magicCode : magicCodes) {
-                    Color color = Color.decode("#" + magicCode.substring(2).replaceAll("\u00A7", ""));
-                    mcText = mcText.replaceAll(Pattern.quote(magicCode), Matcher.quoteReplacement(Ansi.generateCode(Attribute.TEXT_COLOR(color.getRed(), color.getGreen(), color.getBlue()))));
+                    int rgb = Integer.parseInt(magicCode.substring(2).replace("\u00A7", ""), 16);
+                    mcText = mcText.replaceAll(Pattern.quote(magicCode), Matcher.quoteReplacement(generateAnsiTextColorCode(rgb)));
                 }
 
                 String[] matches = MatchingUtils.results(Pattern.compile("(?i)" + '\u00A7' + "[0-9A-FK-ORX]").matcher(mcText)).map(MatchResult::group).toArray(String[]::new);